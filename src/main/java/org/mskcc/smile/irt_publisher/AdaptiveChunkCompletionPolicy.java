@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.repeat.policy.CompletionPolicySupport;
+
+/**
+ * Completion policy which tunes the chunk size between minChunkSize and
+ * maxChunkSize at runtime. Each chunk is timed from its start to the start of
+ * the next chunk, which covers reading, the IRT fetches and publishing. After
+ * sampleChunks full chunks at the current size the average items/sec is
+ * compared with the previous size: the size keeps moving in the same direction
+ * while throughput holds up, and reverses when it drops (hill climbing).
+ * The sizes used and the throughput achieved are recorded at step end.
+ */
+public class AdaptiveChunkCompletionPolicy extends CompletionPolicySupport
+        implements StepExecutionListener {
+    public static final String CHUNK_SIZES = "adaptiveChunkSizes";
+    public static final String ITEMS_PER_SECOND = "adaptiveChunkItemsPerSecond";
+
+    private static final Log LOG = LogFactory.getLog(AdaptiveChunkCompletionPolicy.class);
+    private static final double GROWTH_FACTOR = 1.5;
+    private static final double TOLERANCE = 0.05;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final int sampleChunks;
+
+    private int chunkSize;
+    private int direction = 1;
+    private double lastItemsPerSecond = 0.0;
+
+    // current chunk
+    private RepeatContextSupport chunkContext;
+    private long chunkStartTime;
+
+    // full chunks sampled at the current size
+    private int sampledChunks;
+    private long sampledItems;
+    private long sampledMillis;
+
+    // step totals
+    private final Map<Integer, Integer> chunksBySize = new TreeMap<>();
+    private long totalItems;
+    private long totalMillis;
+
+    /**
+     * Creates an AdaptiveChunkCompletionPolicy starting at initialChunkSize.
+     */
+    public AdaptiveChunkCompletionPolicy(int initialChunkSize, int minChunkSize, int maxChunkSize,
+            int sampleChunks) {
+        if (minChunkSize < 1 || maxChunkSize < minChunkSize || sampleChunks < 1) {
+            throw new IllegalArgumentException("Invalid adaptive chunk bounds: min=" + minChunkSize
+                    + ", max=" + maxChunkSize + ", sample chunks=" + sampleChunks);
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.sampleChunks = sampleChunks;
+        this.chunkSize = clamp(initialChunkSize);
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        long now = System.currentTimeMillis();
+        recordChunk(now);
+        this.chunkContext = new RepeatContextSupport(parent);
+        this.chunkStartTime = now;
+        return chunkContext;
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        return context.getStartedCount() >= chunkSize;
+    }
+
+    @Override
+    public void beforeStep(StepExecution se) {}
+
+    @Override
+    public ExitStatus afterStep(StepExecution se) {
+        recordChunk(System.currentTimeMillis());
+        double itemsPerSecond = (totalMillis > 0) ? totalItems * 1000.0 / totalMillis : 0.0;
+        se.getExecutionContext().putString(CHUNK_SIZES, chunksBySize.toString());
+        se.getExecutionContext().putDouble(ITEMS_PER_SECOND, itemsPerSecond);
+        LOG.info(String.format("%s adaptive chunk sizes (size={chunks}): %s, final size %d,"
+                + " %.2f items/sec", se.getStepName(), chunksBySize, chunkSize, itemsPerSecond));
+        return null;
+    }
+
+    /**
+     * Records the chunk in progress, if any, and retunes the chunk size once
+     * enough full chunks have been sampled.
+     */
+    private void recordChunk(long now) {
+        if (chunkContext == null) {
+            return;
+        }
+        int items = chunkContext.getStartedCount();
+        long elapsed = Math.max(1, now - chunkStartTime);
+        chunkContext = null;
+        if (items == 0) {
+            return;
+        }
+        chunksBySize.merge(chunkSize, 1, Integer::sum);
+        totalItems += items;
+        totalMillis += elapsed;
+        // the last chunk of a step is usually partial and says little about this size
+        if (items < chunkSize) {
+            return;
+        }
+        sampledChunks++;
+        sampledItems += items;
+        sampledMillis += elapsed;
+        if (sampledChunks >= sampleChunks) {
+            retune(sampledItems * 1000.0 / sampledMillis);
+            sampledChunks = 0;
+            sampledItems = 0;
+            sampledMillis = 0;
+        }
+    }
+
+    private void retune(double itemsPerSecond) {
+        if (itemsPerSecond < lastItemsPerSecond * (1 - TOLERANCE)) {
+            direction = -direction;
+        }
+        lastItemsPerSecond = itemsPerSecond;
+        int nextChunkSize = nextChunkSize();
+        if (nextChunkSize == chunkSize) {
+            // at a bound - probe back the other way
+            direction = -direction;
+            nextChunkSize = nextChunkSize();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Chunk size %d achieved %.2f items/sec, next chunk size %d",
+                    chunkSize, itemsPerSecond, nextChunkSize));
+        }
+        chunkSize = nextChunkSize;
+    }
+
+    private int nextChunkSize() {
+        int next = (direction > 0)
+                ? (int) Math.max(chunkSize + 1, Math.round(chunkSize * GROWTH_FACTOR))
+                : (int) Math.min(chunkSize - 1, Math.round(chunkSize / GROWTH_FACTOR));
+        return clamp(next);
+    }
+
+    private int clamp(int size) {
+        return Math.max(minChunkSize, Math.min(maxChunkSize, size));
+    }
+}
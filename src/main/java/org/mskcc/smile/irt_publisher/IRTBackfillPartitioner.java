@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.partition.support.PartitionNameProvider;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Splits the daysBack window of a backfill into date slices of backfillSliceDays
+ * days. The request list is fetched from IRT once and its ids are bucketed by
+ * completion date into slices whose edges are fixed, absolute times taken when the
+ * job is partitioned. The ids of each slice are saved once to IRTBackfillSliceStore;
+ * the slice execution context only holds the slice name and edges. Each slice
+ * becomes its own step execution in the job repository, so a failed backfill can
+ * be restarted without reprocessing completed slices. On restart the stored slice
+ * contexts are reused (see getPartitionNames) and the list is not fetched again.
+ * The single list call and the ids held here still grow with daysBack.
+ */
+public class IRTBackfillPartitioner implements Partitioner, PartitionNameProvider {
+    public static final String SLICE_COMPLETED_AFTER = "sliceCompletedAfter";
+    public static final String SLICE_COMPLETED_BEFORE = "sliceCompletedBefore";
+    public static final String SLICE_NAME = "sliceName";
+
+    private static final Log LOG = LogFactory.getLog(IRTBackfillPartitioner.class);
+
+    @Value("#{jobParameters[daysBack]}")
+    private Integer daysBack;
+
+    @Value("#{jobParameters[cmoRequestsOnly]}")
+    private Boolean cmoRequestsOnly;
+
+    @Value("#{jobParameters[backfillSliceDays]}")
+    private Integer backfillSliceDays;
+
+    @Value("#{stepExecution.jobExecution.jobInstance.instanceId}")
+    private Long jobInstanceId;
+
+    @Autowired
+    private IRTUtil irtUtil;
+
+    @Autowired
+    private IRTBackfillSliceStore backfillSliceStore;
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        long partitionTime = System.currentTimeMillis();
+        long sliceMillis = TimeUnit.DAYS.toMillis(backfillSliceDays);
+        int sliceCount = getSliceCount();
+
+        LOG.info("Fetching request ids from IRT going back: " + daysBack + " days.");
+        List<String> requestIds;
+        try {
+            requestIds = irtUtil.getRequestIds(String.valueOf(daysBack), cmoRequestsOnly);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+
+        // ids arrive most recently completed first, so each slice keeps that order
+        List<List<String>> sliceRequestIds = new ArrayList<>();
+        for (int i = 0; i < sliceCount; i++) {
+            sliceRequestIds.add(new ArrayList<>());
+        }
+        int undatedRequests = 0;
+        for (String requestId : requestIds) {
+            Long completedTime = irtUtil.getCompletedTime(requestId);
+            int slice = 0;
+            if (completedTime == null) {
+                undatedRequests++;
+            } else {
+                long age = Math.max(0, partitionTime - completedTime);
+                slice = (int) Math.min(sliceCount - 1, age / sliceMillis);
+            }
+            sliceRequestIds.get(slice).add(requestId);
+        }
+        if (undatedRequests > 0) {
+            LOG.warn(undatedRequests + " requests have no parseable completion date and were"
+                     + " added to the most recent slice.");
+        }
+
+        Map<String, ExecutionContext> slices = new LinkedHashMap<>();
+        for (int i = 0; i < sliceCount; i++) {
+            long completedBefore = partitionTime - i * sliceMillis;
+            long completedAfter = (i == sliceCount - 1)
+                    ? partitionTime - TimeUnit.DAYS.toMillis(daysBack)
+                    : completedBefore - sliceMillis;
+            ExecutionContext ec = new ExecutionContext();
+            ec.putString(SLICE_COMPLETED_AFTER, Instant.ofEpochMilli(completedAfter).toString());
+            ec.putString(SLICE_COMPLETED_BEFORE, Instant.ofEpochMilli(completedBefore).toString());
+            ec.putString(SLICE_NAME, getSliceName(i));
+            backfillSliceStore.saveSlice(jobInstanceId, getSliceName(i), sliceRequestIds.get(i));
+            slices.put(getSliceName(i), ec);
+        }
+        LOG.info("Backfilling " + requestIds.size() + " requests from " + daysBack + " days in "
+                 + sliceCount + " slices of " + backfillSliceDays + " days.");
+        return slices;
+    }
+
+    @Override
+    public Collection<String> getPartitionNames(int gridSize) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < getSliceCount(); i++) {
+            names.add(getSliceName(i));
+        }
+        return names;
+    }
+
+    private int getSliceCount() {
+        return Math.max(1, (daysBack + backfillSliceDays - 1) / backfillSliceDays);
+    }
+
+    private String getSliceName(int slice) {
+        return "slice" + slice;
+    }
+}
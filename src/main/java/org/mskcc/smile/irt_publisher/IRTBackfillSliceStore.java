@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Local SQLite store of the request ids of each backfill slice, keyed by the
+ * backfill's job instance id and slice name. The ids are written once when the
+ * backfill is partitioned rather than kept in the slice step execution context,
+ * which Spring Batch rewrites to the job repository on every chunk commit.
+ */
+public class IRTBackfillSliceStore implements DisposableBean {
+    private final SingleConnectionDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private boolean initialized = false;
+
+    /**
+     * Creates an IRTBackfillSliceStore backed by the SQLite file at storePath.
+     */
+    public IRTBackfillSliceStore(String storePath) {
+        this.dataSource = new SingleConnectionDataSource("jdbc:sqlite:" + storePath, true);
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    /**
+     * Replaces the request ids stored for the slice, keeping their order.
+     */
+    public synchronized void saveSlice(long jobInstanceId, String slice, List<String> requestIds) {
+        initialize();
+        transactionTemplate.execute(status -> {
+            jdbcTemplate.update("DELETE FROM irt_backfill_slice_request"
+                    + " WHERE job_instance_id = ? AND slice = ?", jobInstanceId, slice);
+            jdbcTemplate.batchUpdate("INSERT INTO irt_backfill_slice_request"
+                    + " (job_instance_id, slice, position, request_id) VALUES (?, ?, ?, ?)",
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int position) throws SQLException {
+                            ps.setLong(1, jobInstanceId);
+                            ps.setString(2, slice);
+                            ps.setInt(3, position);
+                            ps.setString(4, requestIds.get(position));
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return requestIds.size();
+                        }
+                    });
+            return null;
+        });
+    }
+
+    /**
+     * Returns the request ids stored for the slice, in their original order.
+     */
+    public synchronized List<String> getSlice(long jobInstanceId, String slice) {
+        initialize();
+        return jdbcTemplate.queryForList("SELECT request_id FROM irt_backfill_slice_request"
+                + " WHERE job_instance_id = ? AND slice = ? ORDER BY position",
+                String.class, jobInstanceId, slice);
+    }
+
+    /**
+     * Removes the request ids of a completed slice.
+     */
+    public synchronized void deleteSlice(long jobInstanceId, String slice) {
+        initialize();
+        jdbcTemplate.update("DELETE FROM irt_backfill_slice_request"
+                + " WHERE job_instance_id = ? AND slice = ?", jobInstanceId, slice);
+    }
+
+    @Override
+    public void destroy() {
+        dataSource.destroy();
+    }
+
+    private void initialize() {
+        if (!initialized) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS irt_backfill_slice_request"
+                    + " (job_instance_id INTEGER NOT NULL, slice TEXT NOT NULL,"
+                    + " position INTEGER NOT NULL, request_id TEXT NOT NULL,"
+                    + " PRIMARY KEY (job_instance_id, slice, position))");
+            initialized = true;
+        }
+    }
+}
@@ -15,26 +15,142 @@
 
 package org.mskcc.smile.irt_publisher;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
 import org.springframework.beans.factory.annotation.Autowired;
 
 public class IRTListener implements StepExecutionListener {
     @Autowired
     private IRTUtil irtUtil;
 
+    @Autowired
+    private IRTBackfillSliceStore backfillSliceStore;
+
+    private final boolean virtualThreads;
+
     private static final Log LOG = LogFactory.getLog(IRTListener.class);
 
+    /**
+     * Creates an IRTListener reporting throughput for the given executor mode.
+     */
+    public IRTListener(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     @Override
-    public void beforeStep(StepExecution se) {}
+    public void beforeStep(StepExecution se) {
+        if (isBackfillSlice(se)) {
+            LOG.info("Starting " + describeSlice(se));
+        }
+    }
 
     @Override
     public ExitStatus afterStep(StepExecution se) {
+        if (isBackfillSlice(se)) {
+            LOG.info("Finished " + describeSlice(se) + " with status " + se.getStatus()
+                     + ": read " + se.getReadCount() + ", written " + se.getWriteCount()
+                     + ", published " + getPublishedCount(se) + " requests.");
+            if (se.getStatus() == BatchStatus.COMPLETED) {
+                backfillSliceStore.deleteSlice(se.getJobExecution().getJobInstance().getInstanceId(),
+                        se.getExecutionContext().getString(IRTBackfillPartitioner.SLICE_NAME));
+            }
+            logFreshTimeToPublish(se);
+            return se.getExitStatus();
+        }
         irtUtil.logFailedRequests(LOG);
+        logThroughput(se);
+        logFreshTimeToPublish(se);
         return ExitStatus.COMPLETED;
     }
 
+    private boolean isBackfillSlice(StepExecution se) {
+        return se.getExecutionContext().containsKey(IRTBackfillPartitioner.SLICE_NAME);
+    }
+
+    private String describeSlice(StepExecution se) {
+        return se.getStepName() + " (requests completed "
+            + se.getExecutionContext().getString(IRTBackfillPartitioner.SLICE_COMPLETED_AFTER)
+            + " to " + se.getExecutionContext().getString(IRTBackfillPartitioner.SLICE_COMPLETED_BEFORE)
+            + ")";
+    }
+
+    /**
+     * Logs time-to-publish (since job start) of recently completed requests,
+     * reported separately from total run time (see IRTWriter). The partitioned
+     * backfill step reports the totals of its slices.
+     */
+    private void logFreshTimeToPublish(StepExecution se) {
+        long count = 0;
+        long totalTimeToPublish = 0;
+        long maxTimeToPublish = 0;
+        boolean measured = false;
+        for (StepExecution stepExecution : getMeasuredSteps(se)) {
+            ExecutionContext ec = stepExecution.getExecutionContext();
+            if (!ec.containsKey(IRTWriter.FRESH_PUBLISHED_COUNT)) {
+                continue;
+            }
+            measured = true;
+            count += ec.getLong(IRTWriter.FRESH_PUBLISHED_COUNT);
+            totalTimeToPublish += ec.getLong(IRTWriter.FRESH_TOTAL_TIME_TO_PUBLISH);
+            maxTimeToPublish = Math.max(maxTimeToPublish, ec.getLong(IRTWriter.FRESH_MAX_TIME_TO_PUBLISH));
+        }
+        if (!measured) {
+            return;
+        }
+        if (count == 0) {
+            LOG.info(se.getStepName() + " published no recently completed requests.");
+            return;
+        }
+        LOG.info(se.getStepName() + " published " + count + " recently completed requests:"
+                 + " mean time-to-publish " + (totalTimeToPublish / count)
+                 + " ms, max time-to-publish " + maxTimeToPublish + " ms (since job start).");
+    }
+
+    /**
+     * Returns the number of requests actually published, which in delta mode
+     * excludes requests whose status was unchanged (see IRTWriter).
+     */
+    private long getPublishedCount(StepExecution se) {
+        long count = 0;
+        for (StepExecution stepExecution : getMeasuredSteps(se)) {
+            count += stepExecution.getExecutionContext().getLong(IRTWriter.PUBLISHED_COUNT, 0L);
+        }
+        return count;
+    }
+
+    private Collection<StepExecution> getMeasuredSteps(StepExecution se) {
+        if (se.getExecutionContext().containsKey(IRTWriter.FRESH_PUBLISHED_COUNT)) {
+            return Collections.singleton(se);
+        }
+        List<StepExecution> slices = new ArrayList<>();
+        for (StepExecution stepExecution : se.getJobExecution().getStepExecutions()) {
+            if (isBackfillSlice(stepExecution)) {
+                slices.add(stepExecution);
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Logs items/sec for the step so executor modes can be compared across runs.
+     */
+    private void logThroughput(StepExecution se) {
+        long elapsedMillis = System.currentTimeMillis() - se.getStartTime().getTime();
+        double itemsPerSecond = (elapsedMillis > 0)
+                ? se.getWriteCount() * 1000.0 / elapsedMillis : 0.0;
+        LOG.info(String.format("%s processed %d requests (%d published) in %d ms (%.2f requests/sec)"
+                + " using %s", se.getStepName(), se.getWriteCount(), getPublishedCount(se),
+                elapsedMillis, itemsPerSecond,
+                virtualThreads ? "virtual threads" : "thread pools"));
+    }
+
 }
@@ -20,19 +20,20 @@ import java.util.concurrent.CompletableFuture;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 
-public class IRTProcessor implements ItemProcessor<String, Map<String, Object>> {
+public class IRTProcessor implements ItemProcessor<String, IRTRequestStatus> {
     @Autowired
     private IRTUtil irtUtil;
 
     @Override
-    public Map<String, Object> process(String requestId) throws Exception {
+    public IRTRequestStatus process(String requestId) throws Exception {
         CompletableFuture<Map<String, Object>> futureRequestResponse =
             irtUtil.getRequestInfo(requestId);
 
         Map<String, Object> requestResponse = futureRequestResponse.get();
         if (requestResponse == null) {
             irtUtil.updateIRTErrors(requestId);
+            return null;
         }
-        return requestResponse;
+        return new IRTRequestStatus(requestId, requestResponse);
     }
 }
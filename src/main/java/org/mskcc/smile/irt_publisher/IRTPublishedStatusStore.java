@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.util.List;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Local SQLite store of the last document published per request, used to
+ * build delta (merge patch) payloads. Kept apart from the batch job repository
+ * so concurrent writers do not contend with job metadata updates.
+ */
+public class IRTPublishedStatusStore implements DisposableBean {
+    private final SingleConnectionDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private boolean initialized = false;
+
+    /**
+     * Holds the last published document of a request, its version, which is
+     * incremented on every snapshot or delta published for the request, and when
+     * its last full snapshot was published (epoch millis).
+     */
+    public static class PublishedStatus {
+        private final String document;
+        private final long version;
+        private final int deltasSinceSnapshot;
+        private final long lastSnapshotAt;
+
+        /**
+         * Creates a PublishedStatus.
+         */
+        public PublishedStatus(String document, long version, int deltasSinceSnapshot,
+                long lastSnapshotAt) {
+            this.document = document;
+            this.version = version;
+            this.deltasSinceSnapshot = deltasSinceSnapshot;
+            this.lastSnapshotAt = lastSnapshotAt;
+        }
+
+        public String getDocument() {
+            return document;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int getDeltasSinceSnapshot() {
+            return deltasSinceSnapshot;
+        }
+
+        public long getLastSnapshotAt() {
+            return lastSnapshotAt;
+        }
+    }
+
+    /**
+     * Creates an IRTPublishedStatusStore backed by the SQLite file at storePath.
+     */
+    public IRTPublishedStatusStore(String storePath) {
+        this.dataSource = new SingleConnectionDataSource("jdbc:sqlite:" + storePath, true);
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Returns the last published status of the request, or null if none was published.
+     */
+    public synchronized PublishedStatus get(String requestId) {
+        initialize();
+        List<PublishedStatus> statuses = jdbcTemplate.query(
+                "SELECT document, version, deltas_since_snapshot, last_snapshot_at"
+                + " FROM irt_published_status WHERE request_id = ?",
+                (rs, rowNum) -> new PublishedStatus(rs.getString(1), rs.getLong(2), rs.getInt(3),
+                        rs.getLong(4)), requestId);
+        return statuses.isEmpty() ? null : statuses.get(0);
+    }
+
+    /**
+     * Saves the document published for the request.
+     */
+    public synchronized void save(String requestId, PublishedStatus status) {
+        initialize();
+        jdbcTemplate.update("INSERT OR REPLACE INTO irt_published_status"
+                + " (request_id, document, version, deltas_since_snapshot, last_snapshot_at)"
+                + " VALUES (?, ?, ?, ?, ?)", requestId, status.getDocument(), status.getVersion(),
+                status.getDeltasSinceSnapshot(), status.getLastSnapshotAt());
+    }
+
+    @Override
+    public void destroy() {
+        dataSource.destroy();
+    }
+
+    private void initialize() {
+        if (!initialized) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS irt_published_status"
+                    + " (request_id TEXT PRIMARY KEY, document TEXT NOT NULL, version INTEGER NOT NULL,"
+                    + " deltas_since_snapshot INTEGER NOT NULL, last_snapshot_at INTEGER NOT NULL)");
+            initialized = true;
+        }
+    }
+}
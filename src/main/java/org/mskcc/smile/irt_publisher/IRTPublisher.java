@@ -15,6 +15,7 @@
 
 package org.mskcc.smile.irt_publisher;
 
+import java.time.LocalDate;
 import java.util.Date;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -28,6 +29,7 @@ import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -44,7 +46,16 @@ public class IRTPublisher {
                        "Request filter - cmoRequests only.")
             .addOption("d", "daysBack", true,
                        "Request filter - requests completed d+1 days or earlier"
-                       + " (default: 7).");
+                       + " (default: 7).")
+            .addOption("b", "backfillSliceDays", true,
+                       "Backfill mode - splits the daysBack window into slices of the given"
+                       + " number of days which are processed concurrently. The request list is"
+                       + " still fetched once for the whole window, so memory grows with daysBack.")
+            .addOption("i", "backfillId", true,
+                       "Backfill mode - identifies the backfill (default: today's date)."
+                       + " Rerunning a failed backfill with the same options and backfillId"
+                       + " resumes it, skipping completed slices; without -i this only works"
+                       + " on the same calendar day.");
         return options;
     }
 
@@ -60,8 +71,6 @@ public class IRTPublisher {
         CommandLine commandLine = parser.parse(options, args);
 
         JobParametersBuilder toReturn = new JobParametersBuilder();
-        toReturn.addDate("date", new Date());
-        toReturn.addLong("time", System.currentTimeMillis());
         try {
             if (commandLine.hasOption("h")) {
                 help(options, 0);
@@ -77,6 +86,20 @@ public class IRTPublisher {
             } else {
                 toReturn.addString("cmoRequestsOnly", "false");
             }
+            if (commandLine.hasOption("b")) {
+                Integer backfillSliceDays = Integer.parseInt(commandLine.getOptionValue("b"));
+                if (backfillSliceDays < 1) {
+                    throw new IllegalArgumentException("backfillSliceDays must be positive");
+                }
+                // identify backfill runs by backfillId so a failed backfill can be restarted
+                toReturn.addString("backfillSliceDays", String.valueOf(backfillSliceDays));
+                toReturn.addString("backfillId", commandLine.hasOption("i")
+                        ? commandLine.getOptionValue("i") : LocalDate.now().toString());
+                toReturn.addDate("date", new Date(), false);
+            } else {
+                toReturn.addDate("date", new Date());
+                toReturn.addLong("time", System.currentTimeMillis());
+            }
         } catch (Exception e) {
             help(options, 1);
         }
@@ -86,7 +109,10 @@ public class IRTPublisher {
     private static JobExecution launchIRTPublisherJob(ConfigurableApplicationContext ctx,
                                                       JobParametersBuilder builder) throws Exception {
         JobLauncher jobLauncher = ctx.getBean(JobLauncher.class);
-        Job job = ctx.getBean(IRTPublisherJobConfiguration.IRT_PUBLISHER_JOB, Job.class);
+        String jobName = (builder.toJobParameters().getString("backfillSliceDays") != null)
+                ? IRTPublisherJobConfiguration.IRT_BACKFILL_JOB
+                : IRTPublisherJobConfiguration.IRT_PUBLISHER_JOB;
+        Job job = ctx.getBean(jobName, Job.class);
         return jobLauncher.run(job, builder.toJobParameters());
     }
 
@@ -100,14 +126,21 @@ public class IRTPublisher {
         } catch (Exception e) {
             help(getOptions(args), 1);
         }
-        JobExecution jobExecution = launchIRTPublisherJob(ctx, builder);
+        JobExecution jobExecution = null;
+        try {
+            jobExecution = launchIRTPublisherJob(ctx, builder);
+        } catch (JobInstanceAlreadyCompleteException e) {
+            LOG.error("Backfill with backfillId '" + builder.toJobParameters().getString("backfillId")
+                      + "' and these options already completed - pass a new --backfillId to run it again.");
+            SpringApplication.exit(ctx);
+            System.exit(1);
+        }
         ExitStatus exitStatus = jobExecution.getExitStatus();
+        String jobName = jobExecution.getJobInstance().getJobName();
         if (exitStatus.equals(ExitStatus.COMPLETED)) {
-            LOG.info(IRTPublisherJobConfiguration.IRT_PUBLISHER_JOB
-                     + " failed with exit status: " + exitStatus);
+            LOG.info(jobName + " completed with exit status: " + exitStatus);
         } else {
-            LOG.info(IRTPublisherJobConfiguration.IRT_PUBLISHER_JOB
-                     + " completed with exit status: " + exitStatus);
+            LOG.info(jobName + " failed with exit status: " + exitStatus);
         }
 
         System.exit(SpringApplication.exit(ctx));
@@ -16,9 +16,12 @@
 package org.mskcc.smile.irt_publisher;
 
 import java.net.MalformedURLException;
-import java.util.Map;
 import java.util.concurrent.Future;
+import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.mskcc.cmo.messaging.Gateway;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
@@ -29,14 +32,20 @@ import org.springframework.batch.core.configuration.annotation.StepBuilderFactor
 import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.integration.async.AsyncItemProcessor;
 import org.springframework.batch.integration.async.AsyncItemWriter;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.batch.item.ItemStreamReader;
 import org.springframework.batch.item.ItemStreamWriter;
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
 import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -44,6 +53,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.jdbc.datasource.init.DataSourceInitializer;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
@@ -57,10 +68,25 @@ import org.springframework.transaction.PlatformTransactionManager;
 @ComponentScan(basePackages = {"org.mskcc.cmo.messaging", "org.mskcc.cmo.common.*"})
 public class IRTPublisherJobConfiguration {
     public static final String IRT_PUBLISHER_JOB = "irtPublisherJob";
+    public static final String IRT_BACKFILL_JOB = "irtBackfillJob";
+
+    private static final Log LOG = LogFactory.getLog(IRTPublisherJobConfiguration.class);
 
     @Value("${chunk.interval:10}")
     private Integer chunkInterval;
 
+    @Value("${chunk.adaptive.enabled:false}")
+    private Boolean adaptiveChunkEnabled;
+
+    @Value("${chunk.adaptive.min:5}")
+    private Integer adaptiveChunkMin;
+
+    @Value("${chunk.adaptive.max:100}")
+    private Integer adaptiveChunkMax;
+
+    @Value("${chunk.adaptive.sample_chunks:3}")
+    private Integer adaptiveChunkSampleChunks;
+
     @Value("${async.thread_pool_size:5}")
     private Integer asyncThreadPoolSize;
 
@@ -73,6 +99,32 @@ public class IRTPublisherJobConfiguration {
     @Value("${processor.thread_pool_max:10}")
     private Integer processorThreadPoolMax;
 
+    @Value("${backfill.max_active_slices:4}")
+    private Integer backfillMaxActiveSlices;
+
+    @Value("${backfill.store_path:irt_backfill_slices.sqlite}")
+    private String backfillStorePath;
+
+    @Value("${delta.enabled:false}")
+    private Boolean deltaEnabled;
+
+    @Value("${irt.publisher_delta_topic:}")
+    private String irtPublisherDeltaTopic;
+
+    @Value("${delta.store_path:irt_published_status.sqlite}")
+    private String deltaStorePath;
+
+    @Value("${virtual_threads.enabled:false}")
+    private Boolean virtualThreadsEnabled;
+
+    @Value("${virtual_threads.async_max_in_flight:10}")
+    private Integer asyncMaxInFlight;
+
+    @Value("${virtual_threads.processor_max_in_flight:10}")
+    private Integer processorMaxInFlight;
+
+    private boolean useVirtualThreads;
+
     @Autowired
     public JobBuilderFactory jobBuilderFactory;
 
@@ -82,6 +134,9 @@ public class IRTPublisherJobConfiguration {
     @Autowired
     private Gateway messagingGateway;
 
+    @Autowired
+    private IRTUtil irtUtil;
+
     @Bean
     public Gateway messagingGateway() throws Exception {
         messagingGateway.connect();
@@ -123,6 +178,17 @@ public class IRTPublisherJobConfiguration {
         return dataSource;
     }
 
+    /**
+     * Store of last published request documents for delta publishing.
+     */
+    @Bean
+    public IRTPublishedStatusStore irtPublishedStatusStore() {
+        if (deltaEnabled && StringUtils.isBlank(irtPublisherDeltaTopic)) {
+            throw new IllegalStateException("delta.enabled is set but irt.publisher_delta_topic is blank");
+        }
+        return new IRTPublishedStatusStore(deltaStorePath);
+    }
+
     /**
      * Creates a DataSourceInitializer.
      */
@@ -158,18 +224,123 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean
     public Step irtPublisherStep() {
-        return stepBuilderFactory.get("irtPublisherStep")
-            .listener(irtListener())
-            .<String, Future<Map<String,Object>>>chunk(chunkInterval)
+        return publisherStep("irtPublisherStep");
+    }
+
+    private Step publisherStep(String stepName) {
+        StepBuilder stepBuilder = stepBuilderFactory.get(stepName)
+            .listener(irtListener());
+        CompletionPolicy completionPolicy = new SimpleCompletionPolicy(chunkInterval);
+        if (adaptiveChunkEnabled) {
+            stepBuilder.listener((StepExecutionListener) adaptiveChunkCompletionPolicy());
+            completionPolicy = adaptiveChunkCompletionPolicy();
+        }
+        return stepBuilder
+            .<String, Future<IRTRequestStatus>>chunk(completionPolicy)
             .reader(irtReader())
             .processor(asyncItemProcessor())
             .writer(asyncItemWriter())
             .build();
     }
 
+    /**
+     * Tunes the chunk size between chunk.adaptive.min and chunk.adaptive.max,
+     * starting from chunk.interval.
+     */
+    @Bean
+    @StepScope
+    public AdaptiveChunkCompletionPolicy adaptiveChunkCompletionPolicy() {
+        return new AdaptiveChunkCompletionPolicy(chunkInterval, adaptiveChunkMin, adaptiveChunkMax,
+                adaptiveChunkSampleChunks);
+    }
+
+    /**
+     * Backfill job - refreshes the IRT cache once, then publishes the
+     * daysBack window as concurrently processed date slices.
+     */
+    @Bean
+    public Job irtBackfillJob() {
+        return jobBuilderFactory.get(IRT_BACKFILL_JOB)
+            .start(irtRefreshCacheStep())
+            .next(irtBackfillStep())
+            .build();
+    }
+
+    /**
+     * Refreshes the IRT cache for the whole backfill window.
+     */
+    @Bean
+    public Step irtRefreshCacheStep() {
+        return stepBuilderFactory.get("irtRefreshCacheStep")
+            .tasklet(irtRefreshCacheTasklet(null))
+            .build();
+    }
+
+    /**
+     * Refresh cache tasklet.
+     */
+    @Bean
+    @StepScope
+    public Tasklet irtRefreshCacheTasklet(@Value("#{jobParameters[daysBack]}") String daysBack) {
+        return (contribution, chunkContext) -> {
+            LOG.info("Refreshing cache from IRT going back: " + daysBack + " days.");
+            irtUtil.refreshCache(daysBack);
+            return RepeatStatus.FINISHED;
+        };
+    }
+
+    /**
+     * Backfill workflow - one irtBackfillSliceStep execution per date slice,
+     * with at most backfill.max_active_slices running at once.
+     */
+    @Bean
+    public Step irtBackfillStep() {
+        return stepBuilderFactory.get("irtBackfillStep")
+            .listener(irtListener())
+            .partitioner("irtBackfillSliceStep", irtBackfillPartitioner())
+            .step(irtBackfillSliceStep())
+            .taskExecutor(backfillSliceTaskExecutor())
+            .build();
+    }
+
+    /**
+     * Publisher workflow for a single backfill date slice.
+     */
+    @Bean
+    public Step irtBackfillSliceStep() {
+        return publisherStep("irtBackfillSliceStep");
+    }
+
+    /**
+     * Backfill partitioner.
+     */
+    @Bean
+    @StepScope
+    public Partitioner irtBackfillPartitioner() {
+        return new IRTBackfillPartitioner();
+    }
+
+    /**
+     * Store of the request ids of each backfill slice.
+     */
+    @Bean
+    public IRTBackfillSliceStore irtBackfillSliceStore() {
+        return new IRTBackfillSliceStore(backfillStorePath);
+    }
+
+    /**
+     * Runs backfill slices, blocking submission once max active slices are running.
+     */
+    @Bean
+    public TaskExecutor backfillSliceTaskExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("irt-backfill-");
+        executor.setConcurrencyLimit(backfillMaxActiveSlices);
+        return executor;
+    }
+
     @Bean
     public StepExecutionListener irtListener() {
-        return new IRTListener();
+        return new IRTListener(useVirtualThreads);
     }
 
     /**
@@ -186,7 +357,10 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean(name = "asyncIRTRequestThreadPoolTaskExecutor")
     @StepScope
-    public ThreadPoolTaskExecutor asyncLimsRequestThreadPoolTaskExecutor() {
+    public TaskExecutor asyncLimsRequestThreadPoolTaskExecutor() {
+        if (useVirtualThreads) {
+            return new VirtualThreadTaskExecutor(asyncMaxInFlight);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(asyncThreadPoolSize);
         executor.setMaxPoolSize(asyncThreadPoolMax);
@@ -199,8 +373,8 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean
     @StepScope
-    public ItemProcessor<String, Future<Map<String, Object>>> asyncItemProcessor() {
-        AsyncItemProcessor<String, Map<String, Object>> asyncItemProcessor = new AsyncItemProcessor();
+    public ItemProcessor<String, Future<IRTRequestStatus>> asyncItemProcessor() {
+        AsyncItemProcessor<String, IRTRequestStatus> asyncItemProcessor = new AsyncItemProcessor();
         asyncItemProcessor.setTaskExecutor(processorThreadPoolTaskExecutor());
         asyncItemProcessor.setDelegate(irtProcessor());
         return asyncItemProcessor;
@@ -211,7 +385,10 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean(name = "processorThreadPoolTaskExecutor")
     @StepScope
-    public ThreadPoolTaskExecutor processorThreadPoolTaskExecutor() {
+    public TaskExecutor processorThreadPoolTaskExecutor() {
+        if (useVirtualThreads) {
+            return new VirtualThreadTaskExecutor(processorMaxInFlight);
+        }
         ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
         threadPoolTaskExecutor.setCorePoolSize(processorThreadPoolSize);
         threadPoolTaskExecutor.setMaxPoolSize(processorThreadPoolMax);
@@ -219,6 +396,35 @@ public class IRTPublisherJobConfiguration {
         return threadPoolTaskExecutor;
     }
 
+    /**
+     * Virtual threads are opt-in and fall back to the thread pools when
+     * the running JVM does not support them. In-flight fetches are bounded by
+     * the chunk size whatever the executor, since AsyncItemWriter waits on the
+     * whole chunk before the next one is read, so a larger max_in_flight is
+     * only reachable with a matching chunk size.
+     */
+    @PostConstruct
+    public void initExecutorMode() {
+        useVirtualThreads = virtualThreadsEnabled;
+        if (!virtualThreadsEnabled) {
+            return;
+        }
+        if (!VirtualThreadTaskExecutor.isSupported()) {
+            LOG.warn("virtual_threads.enabled is set but JVM " + System.getProperty("java.version")
+                     + " does not support virtual threads - using thread pools instead.");
+            useVirtualThreads = false;
+            return;
+        }
+        int maxChunkSize = adaptiveChunkEnabled ? adaptiveChunkMax : chunkInterval;
+        if (Math.max(asyncMaxInFlight, processorMaxInFlight) > maxChunkSize) {
+            LOG.warn("virtual_threads max_in_flight (async: " + asyncMaxInFlight + ", processor: "
+                     + processorMaxInFlight + ") exceeds the maximum chunk size (" + maxChunkSize
+                     + ") - in-flight IRT fetches are bounded by the chunk size, so raise "
+                     + (adaptiveChunkEnabled ? "chunk.adaptive.max" : "chunk.interval")
+                     + " to use more.");
+        }
+    }
+
     /**
      * IRTProcessor.
      */
@@ -233,8 +439,8 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean
     @StepScope
-    public ItemWriter<Future<Map<String, Object>>> asyncItemWriter() {
-        AsyncItemWriter<Map<String, Object>> asyncItemWriter = new AsyncItemWriter();
+    public ItemWriter<Future<IRTRequestStatus>> asyncItemWriter() {
+        AsyncItemWriter<IRTRequestStatus> asyncItemWriter = new AsyncItemWriter();
         asyncItemWriter.setDelegate(irtWriter());
         return asyncItemWriter;
     }
@@ -244,7 +450,7 @@ public class IRTPublisherJobConfiguration {
      */
     @Bean
     @StepScope
-    public ItemStreamWriter<Map<String, Object>> irtWriter() {
+    public ItemStreamWriter<IRTRequestStatus> irtWriter() {
         return new IRTWriter();
     }
 }
@@ -15,6 +15,7 @@
 
 package org.mskcc.smile.irt_publisher;
 
+import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +38,16 @@ public class IRTReader implements ItemStreamReader<String> {
     @Value("#{jobParameters[cmoRequestsOnly]}")
     private Boolean cmoRequestsOnly;
 
+    // only set when reading a date slice of a backfill (see IRTBackfillPartitioner)
+    @Value("#{stepExecutionContext[" + IRTBackfillPartitioner.SLICE_NAME + "]}")
+    private String sliceName;
+
+    @Value("#{stepExecution.jobExecution.jobInstance.instanceId}")
+    private Long jobInstanceId;
+
+    @Autowired
+    private IRTBackfillSliceStore backfillSliceStore;
+
     @Autowired
     private IRTUtil irtUtil;
 
@@ -44,6 +55,10 @@ public class IRTReader implements ItemStreamReader<String> {
 
     @Override
     public void open(ExecutionContext ec) throws ItemStreamException {
+        if (sliceName != null) {
+            this.requestIdsList = new ArrayList<>(backfillSliceStore.getSlice(jobInstanceId, sliceName));
+            return;
+        }
         LOG.info("Refreshing cache from IRT going back: " + daysBack + " days.");
         try {
             irtUtil.refreshCache(daysBack);
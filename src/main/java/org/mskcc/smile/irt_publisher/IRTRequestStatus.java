@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.util.Map;
+
+/**
+ * Request status document from IRT paired with the id it was fetched for,
+ * since the id is not guaranteed to be part of the document itself.
+ */
+public class IRTRequestStatus {
+    private final String requestId;
+    private final Map<String, Object> requestInfo;
+
+    /**
+     * Creates an IRTRequestStatus.
+     */
+    public IRTRequestStatus(String requestId, Map<String, Object> requestInfo) {
+        this.requestId = requestId;
+        this.requestInfo = requestInfo;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public Map<String, Object> getRequestInfo() {
+        return requestInfo;
+    }
+}
@@ -17,15 +17,25 @@ package org.mskcc.smile.irt_publisher;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContexts;
 import org.apache.http.conn.ssl.TrustStrategy;
@@ -42,10 +52,13 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 @Component
 public class IRTUtil {
+    private static final Log LOG = LogFactory.getLog(IRTUtil.class);
 
     @Value("${irt.base_url}")
     private String irtBaseUrl;
@@ -65,38 +78,158 @@ public class IRTUtil {
     @Value("${irt.request_info_endpoint}")
     private String irtRequestInfoEndpoint;
 
+    @Value("${irt.connect_timeout_ms:30000}")
+    private Integer irtConnectTimeoutMs;
+
+    @Value("${irt.request_list_read_timeout_ms:600000}")
+    private Integer irtRequestListReadTimeoutMs;
+
+    @Value("${irt.request_list_retries:3}")
+    private Integer irtRequestListRetries;
+
+    @Value("${irt.request_list_retry_backoff_ms:10000}")
+    private Long irtRequestListRetryBackoffMs;
+
+    @Value("${irt.request_completed_date_field:completedDate}")
+    private String irtRequestCompletedDateField;
+
+    @Value("${irt.cmo_request_priority_hours:0}")
+    private Long cmoRequestPriorityHours;
+
+    @Value("${irt.fresh_request_window_hours:24}")
+    private Long freshRequestWindowHours;
+
     private ObjectMapper mapper =  new ObjectMapper();
     protected Collection<String> irtErrors = Collections.synchronizedCollection(new ArrayList<>());
+    private Map<String, Long> requestCompletedTimes = new ConcurrentHashMap<>();
 
     /**
      * Calls into request tracker to get list of request ids.
      */
     public List<String> getRequestIds(String daysBack, Boolean cmoRequestsOnly) throws Exception {
+        return filterRequestIds(getRequestList(daysBack), cmoRequestsOnly);
+    }
+
+    /**
+     * The list call for a large daysBack can be slow, so it has its own read
+     * timeout and is retried on I/O and server errors.
+     */
+    private List<Map> getRequestList(String daysBack) throws Exception {
         String requestUrl = irtBaseUrl + irtRequestListEndpoint + daysBack;
-        RestTemplate restTemplate = getRestTemplate();
+        RestTemplate restTemplate = getRestTemplate(irtConnectTimeoutMs, irtRequestListReadTimeoutMs);
         HttpEntity<LinkedMultiValueMap<String, Object>> requestEntity = getRequestEntity();
-        ResponseEntity responseEntity =
-            restTemplate.exchange(requestUrl, HttpMethod.GET, requestEntity, Object.class);
+        ResponseEntity responseEntity = null;
+        for (int attempt = 0; responseEntity == null; attempt++) {
+            try {
+                responseEntity =
+                    restTemplate.exchange(requestUrl, HttpMethod.GET, requestEntity, Object.class);
+            } catch (ResourceAccessException | HttpServerErrorException e) {
+                if (attempt >= irtRequestListRetries) {
+                    throw e;
+                }
+                LOG.warn("Request list call going back " + daysBack + " days failed (attempt "
+                         + (attempt + 1) + " of " + (irtRequestListRetries + 1) + "): "
+                         + e.getMessage() + " - retrying in " + irtRequestListRetryBackoffMs + " ms.");
+                Thread.sleep(irtRequestListRetryBackoffMs);
+            }
+        }
         Map<String, Object> response =
             mapper.readValue(mapper.writeValueAsString(responseEntity.getBody()), Map.class);
 
         String requestListJSON = mapper.writeValueAsString(response.get("data"));
-        List<Map> requestListMap = mapper.readValue(requestListJSON, List.class);
+        return mapper.readValue(requestListJSON, List.class);
+    }
+
+    /**
+     * Returns request ids most recently completed first, so fresh statuses are
+     * published in the first chunks. CMO requests are ordered as if they completed
+     * irt.cmo_request_priority_hours more recently. Requests without a parseable
+     * completion date keep their list order, after all dated requests.
+     */
+    private List<String> filterRequestIds(List<Map> requestListMap, Boolean cmoRequestsOnly) {
         List<String> requestIds = new ArrayList<>();
+        Map<String, Long> priorities = new HashMap<>();
+        int datedRequests = 0;
         for (Map m : requestListMap) {
             String requestId = (String)m.get("requestId");
-            if (cmoRequestsOnly) {
-                boolean cmoRequest = (Boolean)m.get("isCmoRequest");
-                if (!cmoRequest) {
-                    updateIRTErrors(requestId);
-                    continue;
+            boolean cmoRequest = Boolean.TRUE.equals(m.get("isCmoRequest"));
+            if (cmoRequestsOnly && !cmoRequest) {
+                updateIRTErrors(requestId);
+                continue;
+            }
+            Long completedTime = parseCompletedTime(m.get(irtRequestCompletedDateField));
+            long priority = Long.MIN_VALUE;
+            if (completedTime != null) {
+                requestCompletedTimes.put(requestId, completedTime);
+                datedRequests++;
+                priority = completedTime;
+                if (cmoRequest) {
+                    priority += TimeUnit.HOURS.toMillis(cmoRequestPriorityHours);
                 }
             }
+            priorities.put(requestId, priority);
             requestIds.add(requestId);
         }
+        if (!requestIds.isEmpty() && datedRequests == 0) {
+            LOG.warn("None of the " + requestIds.size() + " requests listed by IRT has a parseable '"
+                     + irtRequestCompletedDateField + "' completion date - requests will not be ordered"
+                     + " by completion time. Check irt.request_completed_date_field.");
+        }
+        requestIds.sort(Comparator.comparing(priorities::get, Comparator.reverseOrder()));
         return requestIds;
     }
 
+    /**
+     * Parses a completion date given as epoch millis or as an ISO-8601 instant,
+     * date-time or date. Returns null if the value cannot be parsed.
+     */
+    private Long parseCompletedTime(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (!(value instanceof String)) {
+            return null;
+        }
+        String date = (String) value;
+        try {
+            return Long.parseLong(date);
+        } catch (NumberFormatException e) {
+            // not epoch millis
+        }
+        try {
+            return Instant.parse(date).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not an instant
+        }
+        try {
+            return LocalDateTime.parse(date).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not a local date-time
+        }
+        try {
+            return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the completion time (epoch millis) of a request returned by
+     * getRequestIds, or null if its completion date could not be parsed.
+     */
+    public Long getCompletedTime(String requestId) {
+        return requestCompletedTimes.get(requestId);
+    }
+
+    /**
+     * Returns true if the request completed within irt.fresh_request_window_hours.
+     */
+    public boolean isFreshRequest(String requestId) {
+        Long completedTime = (requestId != null) ? requestCompletedTimes.get(requestId) : null;
+        return completedTime != null && System.currentTimeMillis() - completedTime
+                <= TimeUnit.HOURS.toMillis(freshRequestWindowHours);
+    }
+
     /**
      * Gets request status from request tracker.
      */
@@ -155,6 +288,10 @@ public class IRTUtil {
     }
 
     private RestTemplate getRestTemplate() throws Exception {
+        return getRestTemplate(0, 0);
+    }
+
+    private RestTemplate getRestTemplate(int connectTimeoutMs, int readTimeoutMs) throws Exception {
         TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
         HostnameVerifier hostnameVerifier = (s, sslSession) -> true;
         SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, acceptingTrustStrategy).build();
@@ -162,6 +299,8 @@ public class IRTUtil {
         CloseableHttpClient httpClient = HttpClients.custom().setSSLSocketFactory(csf).build();
         HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
         requestFactory.setHttpClient(httpClient);
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
         return new RestTemplate(requestFactory);
     }
 
@@ -16,8 +16,11 @@
 package org.mskcc.smile.irt_publisher;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mskcc.cmo.messaging.Gateway;
@@ -27,34 +30,78 @@ import org.springframework.batch.item.ItemStreamWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
-public class IRTWriter implements ItemStreamWriter<Map<String, Object>> {
+public class IRTWriter implements ItemStreamWriter<IRTRequestStatus> {
+    public static final String PUBLISHED_COUNT = "publishedCount";
+    public static final String FRESH_PUBLISHED_COUNT = "freshPublishedCount";
+    public static final String FRESH_TOTAL_TIME_TO_PUBLISH = "freshTotalTimeToPublish";
+    public static final String FRESH_MAX_TIME_TO_PUBLISH = "freshMaxTimeToPublish";
 
     @Autowired
     private Gateway messagingGateway;
 
+    @Autowired
+    private IRTUtil irtUtil;
+
+    @Autowired
+    private IRTPublishedStatusStore publishedStatusStore;
+
     @Value("${irt.publisher_topic}")
     private String IRT_PUBLISHER_TOPIC;
 
+    @Value("${irt.publisher_delta_topic:}")
+    private String IRT_PUBLISHER_DELTA_TOPIC;
+
+    @Value("${delta.enabled:false}")
+    private Boolean deltaEnabled;
+
+    @Value("${delta.full_snapshot_interval:10}")
+    private Integer fullSnapshotInterval;
+
+    @Value("${delta.full_snapshot_max_age_hours:24}")
+    private Long fullSnapshotMaxAgeHours;
+
     private ObjectMapper mapper = new ObjectMapper();
     private static final Log LOG = LogFactory.getLog(IRTWriter.class);
 
+    @Value("#{stepExecution.jobExecution.startTime}")
+    private Date jobStartTime;
+
+    private long publishedCount;
+
+    // time-to-publish (since the job started) of recently completed requests
+    private long freshPublishedCount;
+    private long freshTotalTimeToPublish;
+    private long freshMaxTimeToPublish;
+
     @Override
     public void open(ExecutionContext ec) throws ItemStreamException {}
 
     @Override
-    public void update(ExecutionContext ec) throws ItemStreamException {}
+    public void update(ExecutionContext ec) throws ItemStreamException {
+        ec.putLong(PUBLISHED_COUNT, publishedCount);
+        ec.putLong(FRESH_PUBLISHED_COUNT, freshPublishedCount);
+        ec.putLong(FRESH_TOTAL_TIME_TO_PUBLISH, freshTotalTimeToPublish);
+        ec.putLong(FRESH_MAX_TIME_TO_PUBLISH, freshMaxTimeToPublish);
+    }
 
     @Override
     public void close() throws ItemStreamException {}
 
     @Override
-    public void write(List<? extends Map<String, Object>> requestResponseList) throws Exception {
-        for (Map<String, Object> request : requestResponseList) {
+    public void write(List<? extends IRTRequestStatus> requestStatusList) throws Exception {
+        for (IRTRequestStatus requestStatus : requestStatusList) {
             try {
-                String requestJson = mapper.writeValueAsString(request);
-                LOG.info("\nPublishing IRT new status:\n\n"
-                         + requestJson + "\n\n on topic: " + IRT_PUBLISHER_TOPIC);
-                messagingGateway.publish(IRT_PUBLISHER_TOPIC, requestJson);
+                String requestJson = mapper.writeValueAsString(requestStatus.getRequestInfo());
+                boolean published = true;
+                if (deltaEnabled) {
+                    published = publishDelta(requestStatus, requestJson);
+                } else {
+                    publishSnapshot(requestJson);
+                }
+                if (published) {
+                    publishedCount++;
+                    recordTimeToPublish(requestStatus.getRequestId());
+                }
             } catch (Exception e) {
                 LOG.error("Error encountered during attempt to process request ids - exiting...");
                 throw new RuntimeException(e);
@@ -62,4 +109,72 @@ public class IRTWriter implements ItemStreamWriter<Map<String, Object>> {
         }
     }
 
+    private void publishSnapshot(String requestJson) throws Exception {
+        LOG.info("\nPublishing IRT new status:\n\n"
+                 + requestJson + "\n\n on topic: " + IRT_PUBLISHER_TOPIC);
+        messagingGateway.publish(IRT_PUBLISHER_TOPIC, requestJson);
+    }
+
+    /**
+     * Publishes the change since the last document published for the request on
+     * the delta topic, as a JSON Merge Patch against version baseVersion. A full
+     * snapshot is published instead when the request has not been published
+     * before, after delta.full_snapshot_interval consecutive deltas, or once its
+     * last snapshot is older than delta.full_snapshot_max_age_hours - the latter
+     * even if the status has not changed, so consumers that missed a message can
+     * resync. Every message carries the version it produces, so a consumer whose
+     * version is not baseVersion knows to wait for the next snapshot. Nothing is
+     * published on the publisher topic in delta mode. Returns false if nothing
+     * was published because the status is unchanged.
+     */
+    private boolean publishDelta(IRTRequestStatus requestStatus, String requestJson) throws Exception {
+        String requestId = requestStatus.getRequestId();
+        IRTPublishedStatusStore.PublishedStatus lastPublished = publishedStatusStore.get(requestId);
+        long now = System.currentTimeMillis();
+        long version = (lastPublished == null) ? 1 : lastPublished.getVersion() + 1;
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("requestId", requestId);
+        message.put("version", version);
+        if (lastPublished == null
+                || lastPublished.getDeltasSinceSnapshot() >= fullSnapshotInterval
+                || now - lastPublished.getLastSnapshotAt()
+                    >= TimeUnit.HOURS.toMillis(fullSnapshotMaxAgeHours)) {
+            message.put("type", "snapshot");
+            message.put("document", requestStatus.getRequestInfo());
+            publishOnDeltaTopic(message);
+            publishedStatusStore.save(requestId,
+                    new IRTPublishedStatusStore.PublishedStatus(requestJson, version, 0, now));
+            return true;
+        }
+        Map<String, Object> patch = JsonMergePatch.diff(
+                mapper.readValue(lastPublished.getDocument(), Map.class), requestStatus.getRequestInfo());
+        if (patch.isEmpty()) {
+            LOG.debug("IRT status unchanged for request: " + requestId);
+            return false;
+        }
+        message.put("type", "delta");
+        message.put("baseVersion", lastPublished.getVersion());
+        message.put("mergePatch", patch);
+        publishOnDeltaTopic(message);
+        publishedStatusStore.save(requestId, new IRTPublishedStatusStore.PublishedStatus(requestJson,
+                version, lastPublished.getDeltasSinceSnapshot() + 1, lastPublished.getLastSnapshotAt()));
+        return true;
+    }
+
+    private void publishOnDeltaTopic(Map<String, Object> message) throws Exception {
+        String messageJson = mapper.writeValueAsString(message);
+        LOG.info("\nPublishing IRT status " + message.get("type") + ":\n\n"
+                 + messageJson + "\n\n on topic: " + IRT_PUBLISHER_DELTA_TOPIC);
+        messagingGateway.publish(IRT_PUBLISHER_DELTA_TOPIC, messageJson);
+    }
+
+    private void recordTimeToPublish(String requestId) {
+        if (irtUtil.isFreshRequest(requestId)) {
+            long timeToPublish = System.currentTimeMillis() - jobStartTime.getTime();
+            freshPublishedCount++;
+            freshTotalTimeToPublish += timeToPublish;
+            freshMaxTimeToPublish = Math.max(freshMaxTimeToPublish, timeToPublish);
+        }
+    }
+
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Builds JSON Merge Patch (RFC 7386) documents between two parsed JSON objects.
+ */
+public final class JsonMergePatch {
+
+    private JsonMergePatch() {}
+
+    /**
+     * Returns the merge patch which transforms source into target, or an empty
+     * map if they are equal. Removed members are patched to null and arrays are
+     * replaced as a whole; as with any merge patch, a member whose new value is
+     * null cannot be told apart from a removed member.
+     */
+    public static Map<String, Object> diff(Map<String, Object> source, Map<String, Object> target) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        for (String key : source.keySet()) {
+            if (!target.containsKey(key)) {
+                patch.put(key, null);
+            }
+        }
+        for (Map.Entry<String, Object> entry : target.entrySet()) {
+            String key = entry.getKey();
+            Object targetValue = entry.getValue();
+            Object sourceValue = source.get(key);
+            if (source.containsKey(key) && Objects.equals(sourceValue, targetValue)) {
+                continue;
+            }
+            if (sourceValue instanceof Map && targetValue instanceof Map) {
+                Map<String, Object> nestedPatch =
+                    diff((Map<String, Object>) sourceValue, (Map<String, Object>) targetValue);
+                if (!nestedPatch.isEmpty()) {
+                    patch.put(key, nestedPatch);
+                }
+            } else {
+                patch.put(key, targetValue);
+            }
+        }
+        return patch;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+package org.mskcc.smile.irt_publisher;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * TaskExecutor which runs every task on its own virtual thread, with the number
+ * of in-flight tasks capped by a semaphore rather than by a pool size.
+ * Virtual threads require JDK 21+; the executor is looked up reflectively so the
+ * project still builds and runs against older JDKs (see isSupported()).
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor, DisposableBean {
+    private static final boolean SUPPORTED = probeSupport();
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+
+    /**
+     * Creates a VirtualThreadTaskExecutor allowing at most maxInFlight concurrent tasks.
+     */
+    public VirtualThreadTaskExecutor(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.executorService = newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Returns true if the running JVM provides virtual threads.
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Virtual threads are a preview feature on JDK 19/20, where the factory method
+     * exists but throws unless --enable-preview is set, so an executor is actually
+     * created (and shut down) rather than only looking the method up.
+     */
+    private static boolean probeSupport() {
+        try {
+            newVirtualThreadPerTaskExecutor().shutdown();
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Blocks the caller until a permit is available, then runs the task on a new
+     * virtual thread. Blocking here is what gives the step its back pressure.
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskRejectedException("Interrupted while waiting for a virtual thread permit", e);
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw new TaskRejectedException("Virtual thread executor rejected task", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not supported by this JVM ("
+                    + System.getProperty("java.version") + ")", e);
+        }
+    }
+}
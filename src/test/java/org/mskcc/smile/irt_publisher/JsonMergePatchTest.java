@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+
+package org.mskcc.smile.irt_publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class JsonMergePatchTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private Map<String, Object> json(String json) throws Exception {
+        return mapper.readValue(json, Map.class);
+    }
+
+    /**
+     * Applies a merge patch as described in RFC 7386, section 2.
+     */
+    private Object apply(Object target, Object patch) {
+        if (!(patch instanceof Map)) {
+            return patch;
+        }
+        Map<String, Object> result = (target instanceof Map)
+                ? new LinkedHashMap<>((Map<String, Object>) target) : new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) patch).entrySet()) {
+            if (entry.getValue() == null) {
+                result.remove(entry.getKey());
+            } else {
+                result.put(entry.getKey(), apply(result.get(entry.getKey()), entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private void assertRoundTrip(Map<String, Object> source, Map<String, Object> target) {
+        assertEquals(target, apply(source, JsonMergePatch.diff(source, target)));
+    }
+
+    @Test
+    public void testEqualDocumentsGiveEmptyPatch() throws Exception {
+        Map<String, Object> document =
+            json("{\"requestId\":\"12345\",\"samples\":[{\"id\":\"s1\"}],\"status\":{\"a\":1}}");
+        assertTrue(JsonMergePatch.diff(document, json(mapper.writeValueAsString(document))).isEmpty());
+    }
+
+    @Test
+    public void testChangedAddedAndRemovedMembers() throws Exception {
+        Map<String, Object> source = json("{\"a\":1,\"b\":\"x\",\"c\":true}");
+        Map<String, Object> target = json("{\"a\":2,\"c\":true,\"d\":\"new\"}");
+        assertEquals(json("{\"a\":2,\"b\":null,\"d\":\"new\"}"), JsonMergePatch.diff(source, target));
+        assertRoundTrip(source, target);
+    }
+
+    @Test
+    public void testNestedObjectsArePatchedRecursively() throws Exception {
+        Map<String, Object> source = json("{\"status\":{\"s1\":\"Pending\",\"s2\":\"Pending\"},\"x\":1}");
+        Map<String, Object> target = json("{\"status\":{\"s1\":\"Complete\",\"s2\":\"Pending\"},\"x\":1}");
+        assertEquals(json("{\"status\":{\"s1\":\"Complete\"}}"), JsonMergePatch.diff(source, target));
+        assertRoundTrip(source, target);
+    }
+
+    @Test
+    public void testObjectReplacedByScalarAndScalarByObject() throws Exception {
+        Map<String, Object> source = json("{\"a\":{\"b\":1},\"c\":\"x\"}");
+        Map<String, Object> target = json("{\"a\":\"flat\",\"c\":{\"d\":2}}");
+        assertEquals(target, JsonMergePatch.diff(source, target));
+        assertRoundTrip(source, target);
+    }
+
+    @Test
+    public void testArraysAreReplacedWhole() throws Exception {
+        Map<String, Object> source = json("{\"samples\":[{\"id\":\"s1\",\"status\":\"Pending\"}]}");
+        Map<String, Object> target = json("{\"samples\":[{\"id\":\"s1\",\"status\":\"Complete\"}]}");
+        assertEquals(target, JsonMergePatch.diff(source, target));
+        assertRoundTrip(source, target);
+    }
+
+    @Test
+    public void testNullMembers() throws Exception {
+        // a member set to null is indistinguishable from a removed member
+        Map<String, Object> patch = JsonMergePatch.diff(json("{\"a\":1}"), json("{\"a\":null}"));
+        assertTrue(patch.containsKey("a"));
+        assertEquals(null, patch.get("a"));
+        assertEquals(json("{}"), apply(json("{\"a\":1}"), patch));
+        // unchanged null members and null members removed from the document
+        assertTrue(JsonMergePatch.diff(json("{\"a\":null}"), json("{\"a\":null}")).isEmpty());
+        assertEquals(json("{\"a\":null}"), JsonMergePatch.diff(json("{\"a\":null}"), json("{}")));
+    }
+}